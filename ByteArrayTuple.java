@@ -6,12 +6,20 @@ class ByteArrayTuple
     private final int type; 
     private final int size;
     private final byte[] data;
+    private final Progress progress;
     
     public ByteArrayTuple(byte[] data, int type) 
+    {
+        this(data, type, null);
+    }
+
+    /// progress is counted by the sending thread once the chunk went out
+    public ByteArrayTuple(byte[] data, int type, Progress progress) 
     {
         this.size = data.length;
         this.data = data;
         this.type = type;
+        this.progress = progress;
     }
 
     public int get_type()
@@ -28,4 +36,9 @@ class ByteArrayTuple
     {
         return data;
     }
+
+    public Progress getProgress() 
+    {
+        return progress;
+    }
 }
\ No newline at end of file
@@ -41,7 +41,7 @@ public class Chat
 
                 if (username.equals("admin")) 
                 {
-                    System.out.print("Enter command (e.g., 'kill' to end chat): ");
+                    System.out.print("Enter command ('kill' to end chat, 'transfers', 'pause <id>', 'resume <id>', 'cancel <id>'): ");
                     String command = r.readLine();
                     if (command.equals("kill")) 
                     {
@@ -49,11 +49,11 @@ public class Chat
                         killChat();
                         break;
                     } 
-                    else 
+                    else if (!runTransferCommand(command.trim().split("\\s+")))
                     {
                         System.out.println("Unknown command. Continuing chat...");
-                        continue;
                     }
+                    continue;
                 }
 
                 Peer sender = null;
@@ -69,7 +69,7 @@ public class Chat
                     continue;
                 }
 
-                System.out.print("Enter message (or 'file:<path>' to send a file): ");
+                System.out.print("Enter message (or 'file:<path>' to send a file, directory or glob): ");
                 String input = r.readLine();
 
                 if (input.startsWith("file:")) 
@@ -78,8 +78,8 @@ public class Chat
                     if (parts.length >= 1) 
                     {
                         String filePath = parts[0].trim();
-                        sender.addFileForSending(filePath);
-                        System.out.println(sender.get_name() + " queued file: " + filePath);
+                        Transfer transfer = sender.addFileForSending(filePath);
+                        System.out.println(sender.get_name() + " queued file: " + filePath + " (transfer " + transfer.getId() + ")");
                     } 
                     
                     else 
@@ -99,6 +99,42 @@ public class Chat
         }
     }
 
+    /// Transfer ids are unique across both peers, so the commands don't need a username.
+    private boolean runTransferCommand(String[] command)
+    {
+        if (command.length == 1 && command[0].equals("transfers")) 
+        {
+            for (Peer p : new Peer[] { p1, p2 }) 
+                for (Transfer t : p.getTransfers()) 
+                    System.out.println(t.getId() + "  " + p.get_name() + "  " + t.getState() + "  " + t.getQueued() + " queued  " + t.getPath());
+            return true;
+        }
+
+        if (command.length != 2) return false;
+
+        int id;
+        try 
+        {
+            id = Integer.parseInt(command[1]);
+        } 
+        catch (NumberFormatException e) 
+        {
+            return false;
+        }
+
+        boolean done;
+        switch (command[0]) 
+        {
+            case "pause" -> done = p1.pauseTransfer(id) || p2.pauseTransfer(id);
+            case "resume" -> done = p1.resumeTransfer(id) || p2.resumeTransfer(id);
+            case "cancel" -> done = p1.cancelTransfer(id) || p2.cancelTransfer(id);
+            default -> { return false; }
+        }
+
+        System.out.println((done ? "" : "Cannot ") + command[0] + " transfer " + id);
+        return true;
+    }
+
     public void runChat()
      {
         connectUsers();
@@ -0,0 +1,301 @@
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/// One frame per datagram, so a frame never waits behind file data sent on another transport.
+/// Every frame gets a sequence number and is sent again until the other side acks it, frames
+/// are handed out in order and duplicates are dropped. Corruption is still caught by the
+/// checksum in Peer. A receiving thread of its own reads every datagram, so acks keep coming
+/// in while the thread calling nextFrame() is busy, or waits in send() for room in the window.
+///
+///     hello:  [byte 0]
+///     frame:  [byte 1][int seq][frame]
+///     ack:    [byte 2][int seq]
+public class DatagramTransport implements Transport 
+{
+    private static final int maxDatagramSize = 65507;
+    private static final int headerSize = 5;
+
+    private static final byte HELLO = 0;
+    private static final byte FRAME = 1;
+    private static final byte ACK = 2;
+
+    /// frames that may be in flight without an ack
+    private static final int window = 256;
+    private static final long retransmitMillis = 100;
+    private static final long maxRetransmitMillis = 1000;
+
+    private static class Pending 
+    {
+        final byte[] datagram;
+        long sentAt = System.currentTimeMillis();
+        long timeout = retransmitMillis;
+
+        Pending(byte[] datagram)
+        {
+            this.datagram = datagram;
+        }
+    }
+
+    private final DatagramChannel channel;
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(maxDatagramSize);
+    private final Object ConnectLock = new Object();
+
+    /// sending side, guarded by unacked
+    private final Map<Integer, Pending> unacked = new HashMap<>();
+    private int nextSeq = 0;
+
+    /// receiving side, only used by the receiving thread
+    private int expectedSeq = 0;
+    private final Map<Integer, byte[]> early = new HashMap<>();
+
+    /// frames in order, taken by the thread calling nextFrame()
+    private final MpscQueue<byte[]> Frames = new MpscQueue<>(window);
+
+    private DatagramTransport(DatagramChannel channel)
+    {
+        this.channel = channel;
+        Thread retransmitter = new Thread(this::retransmit, "udp-retransmit");
+        retransmitter.setDaemon(true);
+        retransmitter.start();
+
+        Thread receiver = new Thread(this::receive, "udp-receive");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /// Server side: binds the port and connects to whoever sends the first datagram.
+    public static DatagramTransport listen(int port) throws IOException
+    {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(port));
+        return new DatagramTransport(channel);
+    }
+
+    /// Client side: connects to the server and says hello so it learns our address.
+    public static DatagramTransport connect(String host, int port) throws IOException
+    {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.bind(null);
+        channel.connect(new InetSocketAddress(host, port));
+        channel.write(ByteBuffer.wrap(new byte[] { HELLO }));
+        return new DatagramTransport(channel);
+    }
+
+    @Override
+    public void send(byte[]... parts) throws IOException
+    {
+        int size = headerSize;
+        for (byte[] part : parts) 
+            size += part.length;
+
+        ByteBuffer datagram = ByteBuffer.allocate(size);
+        datagram.put(FRAME).putInt(0);
+        for (byte[] part : parts) 
+            datagram.put(part);
+
+        waitForConnection();
+
+        Pending pending = new Pending(datagram.array());
+        synchronized (unacked) 
+        {
+            while (unacked.size() >= window) 
+            {
+                if (!channel.isOpen()) throw new ClosedChannelException();
+                try 
+                {
+                    unacked.wait(retransmitMillis);
+                } 
+                catch (InterruptedException e) 
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for acks", e);
+                }
+            }
+            datagram.putInt(1, nextSeq);
+            unacked.put(nextSeq++, pending);
+        }
+        write(pending.datagram);
+    }
+
+    @Override
+    public DataInputStream nextFrame() throws IOException
+    {
+        byte[] frame;
+        while ((frame = Frames.poll()) == null) 
+        {
+            if (!channel.isOpen()) throw new ClosedChannelException();
+            MpscQueue.await(Frames);
+        }
+        return new DataInputStream(new ByteArrayInputStream(frame));
+    }
+
+    @Override
+    public int maxFrameSize()
+    {
+        return maxDatagramSize - headerSize;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+        synchronized (ConnectLock) 
+        {
+            ConnectLock.notifyAll();
+        }
+        Frames.wakeConsumer();
+    }
+
+    /// Reads every datagram: acks free room in the window, frames are acked and handed on in order.
+    private void receive()
+    {
+        try 
+        {
+            while (true) 
+            {
+                receiveBuffer.clear();
+                if (channel.isConnected()) 
+                {
+                    channel.read(receiveBuffer);
+                }
+                else 
+                {
+                    SocketAddress from = channel.receive(receiveBuffer);
+                    synchronized (ConnectLock) 
+                    {
+                        channel.connect(from);
+                        ConnectLock.notifyAll();
+                    }
+                }
+                receiveBuffer.flip();
+                if (receiveBuffer.remaining() < headerSize) continue;
+
+                byte kind = receiveBuffer.get();
+                int seq = receiveBuffer.getInt();
+
+                if (kind == ACK) 
+                {
+                    synchronized (unacked) 
+                    {
+                        if (unacked.remove(seq) != null) unacked.notifyAll();
+                    }
+                    continue;
+                }
+                if (kind != FRAME) continue;
+
+                // too far ahead to keep, the sender tries again when there is no ack
+                int ahead = seq - expectedSeq;
+                if (ahead >= window) continue;
+
+                if (ahead == 0) 
+                {
+                    // the frames kept early were acked already, so they have to fit in together with this one,
+                    // otherwise it is not acked and the sender tries again once nextFrame() made room
+                    int run = 0;
+                    while (early.containsKey(seq + 1 + run)) 
+                        run++;
+                    if (window - Frames.size() < 1 + run) continue;
+
+                    byte[] frame = new byte[receiveBuffer.remaining()];
+                    receiveBuffer.get(frame);
+                    Frames.offer(frame);
+                    expectedSeq++;
+
+                    while (run-- > 0) 
+                        Frames.offer(early.remove(expectedSeq++));
+                }
+                else if (ahead > 0 && !early.containsKey(seq)) 
+                {
+                    byte[] frame = new byte[receiveBuffer.remaining()];
+                    receiveBuffer.get(frame);
+                    early.put(seq, frame);
+                }
+
+                // duplicates are acked again, the first ack may have been lost
+                write(ByteBuffer.allocate(headerSize).put(ACK).putInt(seq).array());
+            }
+        } 
+        catch (IOException e) 
+        {
+            // channel closed
+        } 
+        finally 
+        {
+            Frames.wakeConsumer();
+        }
+    }
+
+    private void write(byte[] datagram) throws IOException
+    {
+        synchronized (channel) 
+        {
+            channel.write(ByteBuffer.wrap(datagram));
+        }
+    }
+
+    /// Sends every frame without an ack again once its timeout ran out, doubling the timeout each time.
+    private void retransmit()
+    {
+        while (channel.isOpen()) 
+        {
+            try 
+            {
+                Thread.sleep(retransmitMillis / 4);
+
+                long now = System.currentTimeMillis();
+                synchronized (unacked) 
+                {
+                    Iterator<Pending> it = unacked.values().iterator();
+                    while (it.hasNext()) 
+                    {
+                        Pending pending = it.next();
+                        if (now - pending.sentAt < pending.timeout) continue;
+
+                        write(pending.datagram);
+                        pending.sentAt = now;
+                        pending.timeout = Math.min(pending.timeout * 2, maxRetransmitMillis);
+                    }
+                }
+            } 
+            catch (InterruptedException e) 
+            {
+                return;
+            } 
+            catch (IOException e) 
+            {
+                // channel closed, or the other side is gone for now, try again later
+            }
+        }
+    }
+
+    private void waitForConnection() throws IOException
+    {
+        synchronized (ConnectLock) 
+        {
+            while (!channel.isConnected()) 
+            {
+                if (!channel.isOpen())
+                    throw new ClosedChannelException();
+
+                try 
+                {
+                    ConnectLock.wait();
+                } 
+                catch (InterruptedException e) 
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the other peer", e);
+                }
+            }
+        }
+    }
+}
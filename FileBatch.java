@@ -0,0 +1,117 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/// Packs many small files into one type 5 frame, so they share one header and one checksum.
+/// The frame is the transfer id and a manifest, followed by the contents in the same order:
+///
+///     [int transfer][int count] count * ([short name_length][name][int size]) [content]...
+///
+/// add() may be called from several reader threads.
+public class FileBatch 
+{
+    public static class Entry 
+    {
+        private final String name;
+        private final byte[] data;
+
+        Entry(String name, byte[] data)
+        {
+            this.name = name;
+            this.data = data;
+        }
+
+        public String getName() { return name; }
+        public byte[] getData() { return data; }
+    }
+
+    private final int transfer;
+    private final int maxSize;
+    private final Consumer<ByteArrayTuple> sink;
+    private List<Entry> entries = new ArrayList<>();
+    private int size = 8;
+    private int files = 0;
+
+    public FileBatch(int transfer, int maxSize, Consumer<ByteArrayTuple> sink)
+    {
+        this.transfer = transfer;
+        this.maxSize = maxSize;
+        this.sink = sink;
+    }
+
+    public synchronized void add(String name, byte[] data)
+    {
+        int entrySize = 2 + name.getBytes(StandardCharsets.UTF_8).length + 4 + data.length;
+        if (!entries.isEmpty() && size + entrySize > maxSize) 
+            flush();
+
+        entries.add(new Entry(name, data));
+        size += entrySize;
+        files++;
+    }
+
+    /// Sends whatever is packed so far.
+    public synchronized void flush()
+    {
+        if (entries.isEmpty()) return;
+
+        ByteBuffer frame = ByteBuffer.allocate(size);
+        frame.putInt(transfer);
+        frame.putInt(entries.size());
+        for (Entry e : entries) 
+        {
+            byte[] name = e.getName().getBytes(StandardCharsets.UTF_8);
+            frame.putShort((short) name.length);
+            frame.put(name);
+            frame.putInt(e.getData().length);
+        }
+        for (Entry e : entries) 
+            frame.put(e.getData());
+
+        entries = new ArrayList<>();
+        size = 8;
+        sink.accept(new ByteArrayTuple(frame.array(), 5));
+    }
+
+    /// how many files were added in total
+    public synchronized int getFiles()
+    {
+        return files;
+    }
+
+    public static List<Entry> unpack(byte[] frame) throws IOException
+    {
+        try 
+        {
+            ByteBuffer buffer = ByteBuffer.wrap(frame);
+            buffer.getInt();
+            int count = buffer.getInt();
+            String[] names = new String[count];
+            int[] sizes = new int[count];
+
+            for (int i = 0; i < count; i++) 
+            {
+                byte[] name = new byte[buffer.getShort() & 0xffff];
+                buffer.get(name);
+                names[i] = new String(name, StandardCharsets.UTF_8);
+                sizes[i] = buffer.getInt();
+            }
+
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) 
+            {
+                byte[] data = new byte[sizes[i]];
+                buffer.get(data);
+                entries.add(new Entry(names[i], data));
+            }
+            return entries;
+        } 
+        catch (RuntimeException e) 
+        {
+            throw new IOException("Malformed file batch", e);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/// Lists the regular files under a directory or matching a glob such as "src/**/*.java".
+/// Every file gets the name it should have on the other side: the last directory before
+/// the first glob character, followed by the path below it.
+/// Unlike a plain Java glob, "**/" also matches no directory at all, so "src/**/*.java"
+/// includes src/Foo.java.
+public class FileTree 
+{
+    public static class Entry 
+    {
+        private final Path path;
+        private final String name;
+        private final long size;
+
+        Entry(Path path, String name, long size)
+        {
+            this.path = path;
+            this.name = name;
+            this.size = size;
+        }
+
+        public Path getPath() { return path; }
+        public String getName() { return name; }
+        public long getSize() { return size; }
+
+        public byte[] read() throws IOException { return Files.readAllBytes(path); }
+    }
+
+    public static boolean isGlob(String pattern)
+    {
+        return pattern.indexOf('*') >= 0 || pattern.indexOf('?') >= 0 || pattern.indexOf('[') >= 0 || pattern.indexOf('{') >= 0;
+    }
+
+    /// an existing file is sent as it is, even when its name has glob characters like report[1].pdf
+    public static boolean isTree(String pattern)
+    {
+        Path path = existingPath(pattern);
+        if (path != null && Files.isRegularFile(path)) return false;
+        return isGlob(pattern) || (path != null && Files.isDirectory(path));
+    }
+
+    public static List<Entry> list(String pattern) throws IOException
+    {
+        Path base = existingPath(pattern);
+        PathMatcher matcher = null;
+
+        // a directory with glob characters in its name is listed as it is
+        if (!isGlob(pattern)) 
+        {
+            base = Paths.get(pattern);
+        }
+        else if (base == null || !Files.isDirectory(base)) 
+        {
+            int separator = globSeparator(pattern);
+            if (separator < 0) base = Paths.get(".");
+            else if (separator == 0) base = Paths.get(pattern.substring(0, 1));
+            else base = Paths.get(pattern.substring(0, separator));
+
+            String rest = pattern.substring(separator + 1);
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + optionalDirectories(rest));
+        }
+
+        Path baseName = base.toAbsolutePath().normalize().getFileName();
+        String prefix = baseName == null ? "" : baseName.toString() + "/";
+
+        List<Entry> entries = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(base)) 
+        {
+            for (Path p : (Iterable<Path>) walk::iterator) 
+            {
+                if (!Files.isRegularFile(p)) continue;
+
+                Path relative = base.relativize(p);
+                if (matcher != null && !matcher.matches(relative)) continue;
+
+                String name = prefix + relative.toString().replace('\\', '/');
+                entries.add(new Entry(p, name, Files.size(p)));
+            }
+        }
+        return entries;
+    }
+
+    /// null when nothing is there, or the pattern is no path this file system accepts, e.g. "*" on Windows
+    private static Path existingPath(String pattern)
+    {
+        try 
+        {
+            Path path = Paths.get(pattern);
+            return Files.exists(path) ? path : null;
+        } 
+        catch (InvalidPathException e) 
+        {
+            return null;
+        }
+    }
+
+    /// index of the separator ending the directory before the first glob character, -1 when there is none
+    private static int globSeparator(String pattern)
+    {
+        int glob = pattern.length();
+        for (char c : new char[] { '*', '?', '[', '{' }) 
+        {
+            int i = pattern.indexOf(c);
+            if (i >= 0) glob = Math.min(glob, i);
+        }
+
+        return Math.max(pattern.lastIndexOf('/', glob), pattern.lastIndexOf('\\', glob));
+    }
+
+    /// Turns every "**/" starting a path element into "{**/,}", groups can't be nested
+    /// so the ones inside braces are left alone.
+    private static String optionalDirectories(String glob)
+    {
+        StringBuilder result = new StringBuilder();
+        int depth = 0;
+
+        for (int i = 0; i < glob.length(); i++) 
+        {
+            char c = glob.charAt(i);
+            if (c == '{') depth++;
+            else if (c == '}') depth--;
+
+            boolean elementStart = i == 0 || glob.charAt(i - 1) == '/';
+            if (depth == 0 && elementStart && glob.startsWith("**/", i)) 
+            {
+                result.append("{**/,}");
+                i += 2;
+                continue;
+            }
+            result.append(c);
+        }
+        return result.toString();
+    }
+}
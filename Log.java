@@ -0,0 +1,165 @@
+import java.io.PrintStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/// Leveled logging that keeps console writes off the sending and receiving threads.
+/// Callers only format the line and drop it into a ring buffer, a daemon thread does the printing.
+/// When the buffer is full the line is dropped and counted instead of blocking the caller.
+///
+/// The level defaults to INFO and can be set with -Dlog.level=DEBUG or setLevel().
+/// Categories can be limited to a number of lines per second, the rest is counted and
+/// reported once the next second starts.
+public class Log 
+{
+    public enum Level { ERROR, WARN, INFO, DEBUG }
+
+    private static final int bufferSize = 8192;
+
+    private static volatile Level level = levelFromProperty();
+
+    private static final MpscQueue<String> Lines = new MpscQueue<>(bufferSize);
+    private static final MpscQueue<String> ErrorLines = new MpscQueue<>(bufferSize);
+    private static final AtomicInteger dropped = new AtomicInteger();
+    private static final AtomicLong written = new AtomicLong();
+    private static final AtomicLong queued = new AtomicLong();
+
+    private static final ConcurrentHashMap<String, RateLimit> limits = new ConcurrentHashMap<>();
+
+    private static class RateLimit 
+    {
+        private final int linesPerSecond;
+        private final AtomicLong second = new AtomicLong();
+        private final AtomicInteger count = new AtomicInteger();
+        private final AtomicInteger suppressed = new AtomicInteger();
+
+        RateLimit(int linesPerSecond)
+        {
+            this.linesPerSecond = linesPerSecond;
+        }
+
+        /// Returns how many lines were suppressed in the previous second when a new second starts,
+        /// 0 when the line may be written and -1 when it has to be suppressed.
+        int acquire(long now)
+        {
+            long current = now / 1000;
+            long last = second.get();
+            int report = 0;
+
+            if (current != last && second.compareAndSet(last, current)) 
+            {
+                count.set(0);
+                report = suppressed.getAndSet(0);
+            }
+
+            if (count.incrementAndGet() > linesPerSecond) 
+            {
+                suppressed.incrementAndGet();
+                return -1;
+            }
+            return report;
+        }
+    }
+
+    static 
+    {
+        Thread appender = new Thread(Log::appendLines, "log-appender");
+        appender.setDaemon(true);
+        appender.start();
+    }
+
+    private static Level levelFromProperty()
+    {
+        try 
+        {
+            return Level.valueOf(System.getProperty("log.level", "INFO").toUpperCase());
+        } 
+        catch (IllegalArgumentException e) 
+        {
+            System.err.println("Unknown log.level, using INFO");
+            return Level.INFO;
+        }
+    }
+
+    public static void setLevel(Level newLevel) { level = newLevel; }
+
+    public static boolean isEnabled(Level l) { return l.compareTo(level) <= 0; }
+
+    /// At most linesPerSecond lines of the category are written each second, 0 removes the limit.
+    public static void setRateLimit(String category, int linesPerSecond)
+    {
+        if (linesPerSecond <= 0) limits.remove(category);
+        else limits.put(category, new RateLimit(linesPerSecond));
+    }
+
+    public static void error(String category, String message) { log(Level.ERROR, category, message); }
+    public static void warn(String category, String message)  { log(Level.WARN, category, message); }
+    public static void info(String category, String message)  { log(Level.INFO, category, message); }
+    public static void debug(String category, String message) { log(Level.DEBUG, category, message); }
+
+    public static void log(Level l, String category, String message)
+    {
+        if (!isEnabled(l)) return;
+
+        RateLimit limit = limits.get(category);
+        if (limit != null) 
+        {
+            int report = limit.acquire(System.currentTimeMillis());
+            if (report < 0) return;
+            if (report > 0) enqueue(Level.WARN, "[" + category + "] " + report + " lines suppressed");
+        }
+
+        enqueue(l, message);
+    }
+
+    /// Waits until everything logged so far is printed, e.g. before the program exits.
+    public static void flush()
+    {
+        long target = queued.get();
+        while (written.get() < target) 
+        {
+            Lines.wakeConsumer();
+            Thread.onSpinWait();
+            Thread.yield();
+        }
+    }
+
+    private static void enqueue(Level l, String line)
+    {
+        MpscQueue<String> queue = l.compareTo(Level.WARN) <= 0 ? ErrorLines : Lines;
+        if (queue.offer(line)) queued.incrementAndGet();
+        else dropped.incrementAndGet();
+    }
+
+    private static void appendLines()
+    {
+        while (true) 
+        {
+            int n = drain(ErrorLines, System.err) + drain(Lines, System.out);
+
+            int lost = dropped.getAndSet(0);
+            if (lost > 0) 
+                System.err.println("[log] " + lost + " lines dropped, logging buffer was full");
+
+            if (n == 0) 
+                MpscQueue.await(Lines, ErrorLines);
+        }
+    }
+
+    private static int drain(MpscQueue<String> queue, PrintStream out)
+    {
+        int n = 0;
+        String line;
+        while ((line = queue.poll()) != null) 
+        {
+            out.println(line);
+            n++;
+        }
+        if (n > 0) 
+        {
+            out.flush();
+            written.addAndGet(n);
+        }
+        return n;
+    }
+}
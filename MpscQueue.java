@@ -0,0 +1,162 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/// Bounded ring buffer for many producer threads and one consumer thread, without locks.
+/// Producers claim a slot with a CAS on tail and then publish the element into it,
+/// the consumer is the only one that moves head. A consumer with nothing to do parks
+/// in await() and is unparked by the next producer.
+public class MpscQueue<T> 
+{
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    /// last head seen by a producer, so producers don't read the line the consumer keeps writing
+    private volatile long headCache = 0;
+
+    /// elements polled before the ring, last pushed first, used to resend frames
+    private final AtomicReference<Node<T>> front = new AtomicReference<>();
+
+    private static class Node<T> 
+    {
+        final T item;
+        Node<T> next;
+
+        Node(T item)
+        {
+            this.item = item;
+        }
+    }
+
+    /// how long both sides busy-wait before parking, only worth it when the other side has its own CPU
+    private static final int spinTries = Runtime.getRuntime().availableProcessors() > 1 ? 200 : 0;
+
+    private volatile Thread consumer;
+    private volatile boolean parked = false;
+
+    public MpscQueue(int capacity)
+    {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /// Adds the element at the end, or returns false if the queue is full.
+    public boolean offer(T item)
+    {
+        while (true) 
+        {
+            long t = tail.get();
+            if (t - headCache >= slots.length()) 
+            {
+                headCache = head.get();
+                if (t - headCache >= slots.length()) 
+                    return false;
+            }
+
+            if (tail.compareAndSet(t, t + 1)) 
+            {
+                slots.set((int) t & mask, item);
+                if (parked) LockSupport.unpark(consumer);
+                return true;
+            }
+        }
+    }
+
+    /// Adds the element at the end, waiting while the queue is full.
+    public void put(T item)
+    {
+        for (int tries = 0; !offer(item); tries++) 
+        {
+            if (tries < spinTries) Thread.onSpinWait();
+            else LockSupport.parkNanos(this, 50_000);
+        }
+    }
+
+    /// Puts the element ahead of everything else, like addFirst on a deque.
+    public void pushFront(T item)
+    {
+        Node<T> node = new Node<>(item);
+        do 
+        {
+            node.next = front.get();
+        } 
+        while (!front.compareAndSet(node.next, node));
+        wakeConsumer();
+    }
+
+    /// Consumer only. Returns null when empty, or when a producer has claimed the next slot
+    /// but not yet filled it.
+    public T poll()
+    {
+        Node<T> first;
+        while ((first = front.get()) != null) 
+        {
+            if (front.compareAndSet(first, first.next)) return first.item;
+        }
+
+        long h = head.get();
+        int index = (int) h & mask;
+        T item = slots.get(index);
+        if (item == null) 
+            return null;
+
+        slots.lazySet(index, null);
+        head.lazySet(h + 1);
+        return item;
+    }
+
+    public boolean isEmpty()
+    {
+        return front.get() == null && slots.get((int) head.get() & mask) == null;
+    }
+
+    /// Approximate while producers are running.
+    public int size()
+    {
+        int size = (int) (tail.get() - head.get());
+        for (Node<T> n = front.get(); n != null; n = n.next) 
+            size++;
+        return size;
+    }
+
+    /// Unparks the consumer even if the queue did not change, so it can look at other state.
+    public void wakeConsumer()
+    {
+        Thread t = consumer;
+        if (t != null) LockSupport.unpark(t);
+    }
+
+    /// Consumer only. Parks the calling thread until one of the queues gets an element,
+    /// wakeConsumer() is called or the thread is interrupted. May return early, callers poll in a loop.
+    public static void await(MpscQueue<?>... queues)
+    {
+        for (int tries = 0; tries < spinTries; tries++) 
+        {
+            for (MpscQueue<?> q : queues) 
+                if (!q.isEmpty()) return;
+            Thread.onSpinWait();
+        }
+
+        Thread current = Thread.currentThread();
+        boolean empty = true;
+
+        for (MpscQueue<?> q : queues) 
+        {
+            q.consumer = current;
+            q.parked = true;
+        }
+
+        for (MpscQueue<?> q : queues) 
+            empty &= q.isEmpty();
+
+        if (empty) 
+            LockSupport.park(queues[0]);
+
+        for (MpscQueue<?> q : queues) 
+            q.parked = false;
+    }
+}
@@ -2,45 +2,74 @@ import java.io.*;
 import java.net.*;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Deque;
-import java.util.LinkedList;
-import java.util.Queue;
-/// one problem if a file is very very large if the chunks are loaded while send and a clearQueue occurs we will
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Peer 
 {
     private final int bufferMaxSize = 20000;
+    private final int queueCapacity = 1024;
+    private final int transferCapacity = 256;
+    private final int smallFileLimit = bufferMaxSize;
+    private final int batchMaxSize = 64 * 1024;
+    private final int treeReaders = 4;
     private int port;
     private String host;
     private String name;
-    private Socket socket;
-    private Queue<String> Files = new LinkedList<>();
-    private Deque<byte[]> Messages = new LinkedList<>();
-    private Deque<ByteArrayTuple> Chunks = new LinkedList<>();
+    private Transport transport;
+    private Transport messageTransport;
+    private boolean udp_messages = false;
+    private MpscQueue<byte[]> Messages = new MpscQueue<>(queueCapacity);
+    private MpscQueue<ByteArrayTuple> Resends = new MpscQueue<>(queueCapacity);
+
+    /// Outbound transfers by id. Each has its own queue, new ones and state changes
+    /// reach the sending thread through TransferEvents.
+    private final Map<Integer, Transfer> transfers = new ConcurrentHashMap<>();
+    private final MpscQueue<Transfer> TransferEvents = new MpscQueue<>(queueCapacity);
+    private final Deque<Transfer> sending = new ArrayDeque<>();
     private String padding = "!,}{";
 
     ///test veriables
     private boolean test_check_sum_flag = true;
     private boolean test_faild_to_recend = true;
 
-    private int consecative_times_resend = 0;
+    /// set by the listener, carried out by the thread that consumes the queue
+    private final AtomicBoolean clear_msg_requested = new AtomicBoolean(false);
 
-    private OutputStream outputStream;
+    private final ResendState bulkResend = new ResendState();
+    private final ResendState messageResend = new ResendState();
 
-    private final Object FilesLock = new Object();
-    private final Object DataLock  = new Object();
-    private final Object Writinglock = new Object();
+    /// Inbound files by transfer id, only used by the listener thread. A file stays open from its
+    /// start frame until its complete frame (type 7) or the transfer is cancelled (type 6).
+    /// Until it is complete its data goes to "<name>.part", see partFile().
+    private final Map<Integer, File> receivingFiles = new HashMap<>();
+    private final Map<Integer, Progress> receivingProgress = new HashMap<>();
+    /// which transfer has a path open, so two transfers never write the same file
+    private final Map<String, Integer> openPaths = new HashMap<>();
+    /// transfers whose current file was refused, their chunks are skipped until it is complete
+    private final Set<Integer> refusedFiles = new HashSet<>();
 
-    private int type_last_resend_msg = -1;
-
-
-    private File lastCreatedFile;
-
-    private byte[] last_data = null;
-    private int last_type = -1;
+    static 
+    {
+        // a link that keeps corrupting frames makes the listener ask for resends in a tight loop
+        Log.setRateLimit("resend", 20);
+    }
 
     public Peer(int port, String host, String name) 
     {
@@ -53,21 +82,27 @@ public class Peer
     public String get_host() { return host; }
     public String get_name() { return name; }
 
+    /// Send chat messages as datagrams so they don't queue behind file chunks on the socket.
+    /// Both peers have to enable it before connecting.
+    public void enableUdpMessages() { udp_messages = true; }
+
     public void startServer()
     {
         try 
         {
             ServerSocket serverSocket = new ServerSocket(port);
-            System.out.println(name + " listening on port " + port);
-            socket = serverSocket.accept();
-            System.out.println(name + " accepted connection.");
+            if (udp_messages) messageTransport = DatagramTransport.listen(port);
+            Log.info("connection", name + " listening on port " + port);
+            transport = new TcpTransport(serverSocket.accept());
+            if (!udp_messages) messageTransport = transport;
+            Log.info("connection", name + " accepted connection.");
             sleep(2000);
             startThreads();
             serverSocket.close();
         } 
         catch (IOException e) 
         {
-            System.err.println("Error starting server on port " + port);
+            Log.error("connection", "Error starting server on port " + port);
             e.printStackTrace();
         }
     }
@@ -76,82 +111,203 @@ public class Peer
     {
         try 
         {
-            socket = new Socket(targetHost, targetPort);
-            System.out.println(name + " connected to " + targetHost + " on port " + targetPort);
+            transport = new TcpTransport(new Socket(targetHost, targetPort));
+            messageTransport = udp_messages ? DatagramTransport.connect(targetHost, targetPort) : transport;
+            Log.info("connection", name + " connected to " + targetHost + " on port " + targetPort);
             sleep(2000);
             startThreads();
         } 
         catch (IOException e) 
         {
-            System.err.println("Error connecting to " + targetHost + " on port " + targetPort);
+            Log.error("connection", "Error connecting to " + targetHost + " on port " + targetPort);
             e.printStackTrace();
         }
     }
 
     private void startThreads() 
     {
-        new Thread(this::listenForData).start();
+        new Thread(() -> listenForData(transport)).start();
         new Thread(this::sendingData).start();
-        new Thread(this::fillQueue).start();
+        if (messageTransport != transport) 
+        {
+            new Thread(() -> listenForData(messageTransport)).start();
+            new Thread(this::sendingMessages).start();
+        }
     }
 
     public void printMsg(byte[] data)
     {
         String message = new String(data, StandardCharsets.UTF_8);
+        // chat output is printed right away, it is never leveled or dropped like log lines
         System.out.println(name + " received message: " + message);
     }
 
+    /// transfer frames (types 1, 2, 5, 6 and 7) start with the id of their transfer
+    private static int getTransferId(byte[] data)
+    {
+        return ByteBuffer.wrap(data).getInt();
+    }
+
     public void createFile(byte[] data) throws IOException
     {
-        String fileName = new String(data, StandardCharsets.UTF_8);
-        File file = new File(fileName);
-        if (!file.exists()) 
+        int id = getTransferId(data);
+        String fileName = new String(data, 4, data.length - 4, StandardCharsets.UTF_8);
+        releaseFile(id);
+
+        File file = receivedFile(fileName);
+        if (file == null) 
+        {
+            refusedFiles.add(id);
+            return;
+        }
+
+        Integer other = openPaths.get(openPath(file));
+        if (other != null) 
         {
-            file.createNewFile();
-        }   
-        lastCreatedFile = file;
-        System.out.println(name + " receiving file: " + fileName);
+            Log.error("file", name + " refused " + fileName + ", transfer " + other + " is still writing it");
+            refusedFiles.add(id);
+            return;
+        }
+
+        new FileOutputStream(partFile(file)).close();
+
+        receivingFiles.put(id, file);
+        openPaths.put(openPath(file), id);
+        receivingProgress.put(id, new Progress("file", name + " receiving " + fileName, -1));
+        Log.info("file", name + " receiving file: " + fileName);
+    }
+
+    /// The last chunk of the file was sent, it replaces the target and the path is free for other transfers again.
+    public void completeFile(byte[] data)
+    {
+        int id = getTransferId(data);
+        File file = receivingFiles.get(id);
+        releaseFile(id);
+        if (file == null) return;
+
+        try 
+        {
+            replaceFile(partFile(file), file);
+            Log.info("file", name + " received file: " + file.getPath());
+        } 
+        catch (IOException e) 
+        {
+            Log.error("file", name + " could not move " + partFile(file).getName() + " to " + file.getName() + ": " + e);
+        }
+    }
+
+    /// Received data is written next to the target and renamed over it once complete. A sender still
+    /// reading the old file, e.g. with both peers in one working directory, keeps reading intact data,
+    /// and a cancelled transfer never leaves a half written target behind.
+    private static File partFile(File file)
+    {
+        return new File(file.getPath() + ".part");
+    }
+
+    private static void replaceFile(File part, File file) throws IOException
+    {
+        Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void releaseFile(int id)
+    {
+        File file = receivingFiles.remove(id);
+        if (file != null) openPaths.remove(openPath(file));
+        receivingProgress.remove(id);
+        refusedFiles.remove(id);
+    }
+
+    private static String openPath(File file)
+    {
+        return file.getAbsoluteFile().toPath().normalize().toString();
     }
 
     public void writeChunkToFile(byte[] data)
     {
-        if (lastCreatedFile != null)
+        int id = getTransferId(data);
+        if (refusedFiles.contains(id)) return;
+
+        File file = receivingFiles.get(id);
+        if (file != null)
         {
-            try (FileOutputStream fos = new FileOutputStream(lastCreatedFile, true))
+            try (FileOutputStream fos = new FileOutputStream(partFile(file), true))
             {
-                fos.write(data);
-                System.out.println("Receiving");
+                fos.write(data, 4, data.length - 4);
+                if (Log.isEnabled(Log.Level.DEBUG)) Log.debug("chunk", "Receiving");
+                receivingProgress.get(id).add(data.length - 4);
             }
             catch (IOException e)
             {
-                System.err.println("Error writing data to file " + lastCreatedFile.getName());
+                Log.error("file", "Error writing data to file " + file.getName());
                 e.printStackTrace();
             }
         }
         else
         {
-            System.err.println("No file created to write data to.");
+            Log.error("file", "No file created to write data to.");
         }
     }
 
-    public void listenForData() 
+    /// The sender gave up on the transfer, the part of the file it was in the middle of is removed.
+    /// Files it already completed are kept.
+    public void cancelReceiving(byte[] data)
     {
-        DataInputStream dataInputStream = null;
-        try 
+        int id = getTransferId(data);
+        File file = receivingFiles.get(id);
+        releaseFile(id);
+        Log.info("file", name + " transfer " + id + " was cancelled by the sender");
+
+        if (file != null && partFile(file).delete())
+            Log.info("file", name + " removed incomplete " + partFile(file).getName());
+    }
+
+    public void writeBatch(byte[] data) throws IOException
+    {
+        List<FileBatch.Entry> entries = FileBatch.unpack(data);
+        for (FileBatch.Entry entry : entries) 
         {
-            dataInputStream = new DataInputStream(socket.getInputStream());
-        } 
-        catch (IOException e) 
+            File file = receivedFile(entry.getName());
+            if (file == null) continue;
+
+            Integer other = openPaths.get(openPath(file));
+            if (other != null) 
+            {
+                Log.error("file", name + " refused " + entry.getName() + ", transfer " + other + " is still writing it");
+                continue;
+            }
+
+            File part = partFile(file);
+            try (FileOutputStream fos = new FileOutputStream(part))
+            {
+                fos.write(entry.getData());
+            }
+            replaceFile(part, file);
+        }
+        if (Log.isEnabled(Log.Level.DEBUG)) Log.debug("chunk", "Received batch of " + entries.size() + " files");
+    }
+
+    /// Files from the other peer may have a relative path, they must stay below the working directory.
+    private File receivedFile(String fileName)
+    {
+        File file = new File(fileName);
+        if (file.isAbsolute() || Arrays.asList(fileName.split("[/\\\\]")).contains("..")) 
         {
-            System.err.println("Error obtaining input stream.");
-            e.printStackTrace();
-            return; 
+            Log.error("file", name + " refused to write outside the working directory: " + fileName);
+            return null;
         }
 
+        File parent = file.getParentFile();
+        if (parent != null) parent.mkdirs();
+        return file;
+    }
+
+    public void listenForData(Transport in) 
+    {
         while (true) 
         {
             try 
             {
+                DataInputStream dataInputStream = in.nextFrame();
                 int headerSize = padding.getBytes(StandardCharsets.UTF_8).length + 1;
                 byte[] header = new byte[headerSize];
                 dataInputStream.readFully(header);
@@ -160,8 +316,8 @@ public class Peer
 
                 switch (receivedType) 
                 {
-                    case 3 -> processResending(last_type, last_data);
-                    case 4 -> clearQueue();
+                    case 3 -> processResending(getResendState(in));
+                    case 4 -> clearQueue(getResendState(in));
                     default -> 
                     {
                         byte[] checkSumSend = new byte[16];
@@ -187,23 +343,27 @@ public class Peer
                 
                         if (!Arrays.equals(checksumReceived, checkSumSend)) 
                         {
-                            if (consecative_times_resend > 3) 
+                            ResendState state = getResendState(in);
+                            if (state.consecative_times_resend > 3) 
                             {
-                                consecative_times_resend = 0;
+                                state.consecative_times_resend = 0;
                                 throw new SendLimitException("Try to send data block for 4th time");
                             }
-                            consecative_times_resend++;
-                            System.err.println("Checksums are different!!!!");
+                            state.consecative_times_resend++;
+                            Log.warn("resend", "Checksums are different!!!!");
                             throw new Exception("Checksums are different!!!");
                         }
                 
-                        consecative_times_resend = 0;
+                        getResendState(in).consecative_times_resend = 0;
                 
                         switch (receivedType) {
                             case 0 -> printMsg(data);
                             case 1 -> createFile(data);
                             case 2 -> writeChunkToFile(data);
-                            default -> System.err.println(name + " received unknown header: " + header);
+                            case 5 -> writeBatch(data);
+                            case 6 -> cancelReceiving(data);
+                            case 7 -> completeFile(data);
+                            default -> Log.error("resend", name + " received unknown header: " + header);
                         }
                     }
                 }
@@ -212,115 +372,176 @@ public class Peer
 
             catch (SendLimitException e) 
             {
-                System.out.println("Give up from sending file"); 
-                sendFailMsg();
+                Log.warn("resend", "Give up from sending file");
+                if (!sendFailMsg(in)) break;
             } 
             catch (Exception e) 
             {
-                System.out.println("Exception caught: " + e.getMessage() + " -- attempting to resend");
-                askToResend();
+                Log.warn("resend", "Exception caught: " + e.getMessage() + " -- attempting to resend");
+                if (!askToResend(in)) break;
             }
 
         }
+        Log.info("connection", name + " stopped listening, the connection is closed");
     }
 
-    public void processResending(int type, byte[] data)
+    private ResendState getResendState(Transport t)
     {
-        type_last_resend_msg = type;
+        return t == transport ? bulkResend : messageResend;
+    }
+
+    private static boolean isTransferFrame(int type)
+    {
+        return type == 1 || type == 2 || type == 5 || type == 6 || type == 7;
+    }
+
+    public void processResending(ResendState state)
+    {
+        ByteArrayTuple frame = state.last_sent;
+        if (frame == null) 
+        {
+            Log.error("resend", "Asked to resend before anything was sent");
+            return;
+        }
+
+        state.last_resent = frame;
+        int type = frame.get_type();
 
         if (type == 0) 
         {
-            synchronized (DataLock) 
-            {
-                Messages.addFirst(data);
-                DataLock.notify();
-            }
+            Messages.pushFront(frame.getData());
         } 
-        else if (type == 1 || type == 2) 
+        else if (isTransferFrame(type)) 
         {
-            synchronized (DataLock) 
-            {
-                Chunks.addFirst(new ByteArrayTuple(data, type));
-                DataLock.notify();
-            }
+            Resends.put(frame);
         } 
         else if (type == 3) 
         {
-            System.out.println("\"Looping!!! --------> trying to send header with type 3!!!\"");
+            Log.error("resend", "\"Looping!!! --------> trying to send header with type 3!!!\"");
         } 
         else 
         {
-            System.out.println("No such a header!!!");
+            Log.error("resend", "No such a header!!!");
         }
     }
 
-    public void clearQueue()
+    public void clearQueue(ResendState state)
     {
-        synchronized (DataLock) 
+        ByteArrayTuple frame = state.last_resent;
+        if (frame == null) return;
+
+        // the queues have a single consumer, so the sending thread does the actual removing
+        if(isTransferFrame(frame.get_type()))
+        {
+            Transfer transfer = transfers.get(getTransferId(frame.getData()));
+            if (transfer != null && transfer.cancel())
+                Log.info("resend", "Cancelled transfer " + transfer.getId() + " " + transfer.getPath());
+        }
+        else if(frame.get_type() == 0)
         {
-            if(type_last_resend_msg == 1 || type_last_resend_msg == 2)
+            clear_msg_requested.set(true);
+            Messages.wakeConsumer();
+        }
+    }
+
+    /// Sending thread only. Takes the next frame from the transfers in turn, so one transfer
+    /// cannot hold up the others. Cancelled transfers are dropped here together with their
+    /// queue, and the receiver is told with a type 6 frame.
+    private ByteArrayTuple nextTransferChunk()
+    {
+        Transfer changed;
+        while ((changed = TransferEvents.poll()) != null) 
+        {
+            if (!changed.scheduled) 
             {
-                System.out.println("Clear the queue");
-                boolean first_entry = true;
-                while (!Chunks.isEmpty())
-                { 
-                    ByteArrayTuple curr_chunk = Chunks.pollFirst();     
-                    if(curr_chunk.get_type() == 1 && !first_entry) break;
-                    first_entry = false;
-                }
-                System.out.println("dequee size: " + Chunks.size());
+                changed.scheduled = true;
+                sending.addLast(changed);
+            }
+        }
+
+        for (int i = sending.size(); i > 0; i--) 
+        {
+            Transfer transfer = sending.pollFirst();
+
+            if (transfer.isCancelled()) 
+            {
+                transfers.remove(transfer.getId());
+                return new ByteArrayTuple(ByteBuffer.allocate(4).putInt(transfer.getId()).array(), 6);
             }
-            else if(type_last_resend_msg == 0)
+            if (transfer.isFinished()) 
             {
-                System.out.println("Remove from he msg queue");
-                Messages.pollFirst();
+                transfers.remove(transfer.getId());
+                continue;
             }
-            
+
+            sending.addLast(transfer);
+            if (transfer.isPaused()) continue;
+
+            ByteArrayTuple chunk = transfer.poll();
+            if (chunk != null) return chunk;
         }
+        return null;
     }
 
+    /// what the sending thread waits on: its own queues and those of the transfers that may send
+    private MpscQueue<?>[] sendingQueues(boolean withMessages)
+    {
+        List<MpscQueue<?>> queues = new ArrayList<>();
+        queues.add(TransferEvents);
+        queues.add(Resends);
+        if (withMessages) queues.add(Messages);
+        for (Transfer transfer : sending) 
+            if (transfer.getState() == Transfer.State.ACTIVE) queues.add(transfer.getChunks());
+
+        return queues.toArray(new MpscQueue<?>[0]);
+    }
 
-    public void sendFailMsg()
+    private void clearRequestedMsg()
+    {
+        if (!clear_msg_requested.getAndSet(false)) return;
+
+        Log.info("resend", "Remove from he msg queue");
+        Messages.poll();
+    }
+
+
+    /// returns false when the connection is gone
+    public boolean sendFailMsg(Transport out)
     {
         byte[] header = createHeader(4);
         try
         {
-            synchronized (Writinglock) 
-            {    
-                System.out.println("SendFailMsg!!!");
-                outputStream = socket.getOutputStream();
-                outputStream.write(header);
-                outputStream.flush();
-            }
+            Log.info("resend", "SendFailMsg!!!");
+            out.send(header);
+            return true;
         }
         catch (IOException e)
         {
-            e.printStackTrace();
+            Log.error("connection", name + " could not send a give-up: " + e);
+            return false;
         }
     }
 
 
-    public void askToResend()
+    /// returns false when the connection is gone
+    public boolean askToResend(Transport out)
     {   
         byte[] header = createHeader(3);
     
         try
         {
-            synchronized (Writinglock) 
-            {    
-                System.out.println("Resending!!!");
-                outputStream = socket.getOutputStream();
-                outputStream.write(header);
-                outputStream.flush();
-            }
+            Log.info("resend", "Resending!!!");
+            out.send(header);
+            return true;
         }
         catch (IOException e)
         {
-            e.printStackTrace();
+            Log.error("connection", name + " could not ask for a resend: " + e);
+            return false;
         }
     }
 
-    public void sendDataBlock(byte[] messageToSend,  ByteArrayTuple chunkToSend) throws IOException
+    public void sendDataBlock(Transport out, byte[] messageToSend,  ByteArrayTuple chunkToSend) throws IOException
     {
         byte type = -1;
         int msg_length = -1;
@@ -338,8 +559,7 @@ public class Peer
             msg_length = (int) chunkToSend.getData().length;
         }
 
-        last_type = type;
-        last_data = type == 0 ? messageToSend : chunkToSend.getData();
+        getResendState(out).last_sent = type == 0 ? new ByteArrayTuple(messageToSend, 0) : chunkToSend;
         
         if(type != -1 && msg_length != -1)
         {
@@ -347,65 +567,79 @@ public class Peer
             byte[] checkSum = type == 0 ? create_md5(messageToSend) : create_md5(chunkToSend.getData());
             byte[] header = createHeader(type);
 
-            synchronized (Writinglock) 
-            {
-                outputStream.write(header);
-                outputStream.write(checkSum);
-                outputStream.write(msg_length_bytes);
-
-                if(type == 0)
-                {
-                    outputStream.write(messageToSend);
-                }
-                if(type == 1 || type == 2)
-                    outputStream.write(chunkToSend.getData());
-
-                outputStream.flush();
-            }
+            byte[] data = type == 0 ? messageToSend : chunkToSend.getData();
+            out.send(header, checkSum, msg_length_bytes, data);
         }
         else
         {
-            System.out.println("Error ----------> header: " + type + "msg_length: " + msg_length);
+            Log.error("send", "Error ----------> header: " + type + "msg_length: " + msg_length);
         }
     }
 
     public void sendingData() 
     {
+        // messages have their own thread when they go over a separate transport
+        boolean withMessages = messageTransport == transport;
+
         try 
         {
-            outputStream = socket.getOutputStream();
-
             while (true) 
             {
+                if (withMessages) clearRequestedMsg();
 
-                byte[] messageToSend = null;
-                ByteArrayTuple chunkToSend = null;
+                byte[] messageToSend = withMessages ? Messages.poll() : null;
+                ByteArrayTuple chunkToSend = messageToSend == null ? Resends.poll() : null;
+                boolean resend = chunkToSend != null;
+                if (messageToSend == null && chunkToSend == null) 
+                    chunkToSend = nextTransferChunk();
 
-
-                synchronized (DataLock) 
+                if (messageToSend == null && chunkToSend == null) 
                 {
-
-                    while (Messages.isEmpty() && Chunks.isEmpty()) 
-                        DataLock.wait();
-                    
-                    if (!Messages.isEmpty()) 
-                        messageToSend = Messages.pollFirst();
-                    
-                    else if (!Chunks.isEmpty()) 
-                        chunkToSend = Chunks.pollFirst();
-                    
+                    MpscQueue.await(sendingQueues(withMessages));
+                    continue;
                 }
 
-                sendDataBlock(messageToSend, chunkToSend);
+                sendDataBlock(transport, messageToSend, chunkToSend);
+
+                // counted once it is sent, a resend was counted the first time
+                if (!resend && chunkToSend != null && chunkToSend.getProgress() != null) 
+                    chunkToSend.getProgress().add(chunkToSend.getSize() - 4);
             }
         } 
-        catch (IOException | InterruptedException e) 
+        catch (IOException e) 
         {
-            System.err.println("Error sending data");
+            Log.error("send", "Error sending data");
             e.printStackTrace();
         }
     } 
 
+    public void sendingMessages() 
+    {
+        try 
+        {
+            while (true) 
+            {
+                clearRequestedMsg();
+
+                byte[] messageToSend = Messages.poll();
+                if (messageToSend == null) 
+                {
+                    MpscQueue.await(Messages);
+                    continue;
+                }
+
+                // too big for one datagram, fall back to the stream
+                Transport out = getFrameSize(messageToSend.length) <= messageTransport.maxFrameSize() ? messageTransport : transport;
+                sendDataBlock(out, messageToSend, null);
+            }
+        } 
+        catch (IOException e) 
+        {
+            Log.error("send", "Error sending messages");
+            e.printStackTrace();
+        }
+    }
+
      public byte[] create_md5(byte[] data)
     {
         byte[] digest = null;
@@ -417,7 +651,7 @@ public class Peer
         }
         catch (NoSuchAlgorithmException e) 
         {
-            System.err.println("MD5 algorithm not found");
+            Log.error("send", "MD5 algorithm not found");
          
         }
 
@@ -437,31 +671,54 @@ public class Peer
 
     public void addMsg(String message)
     {
-        synchronized (DataLock) 
-        {
-            byte[] message_bytes = message.getBytes(StandardCharsets.UTF_8);
-            Messages.offerLast(message_bytes);
-            DataLock.notify();
-        }
+        byte[] message_bytes = message.getBytes(StandardCharsets.UTF_8);
+        Messages.put(message_bytes);
     }
 
-    public void addFileForSending(String name)
+    /// Starts reading the file, directory or glob into a queue of its own.
+    /// The returned handle can pause, resume or cancel it.
+    public Transfer addFileForSending(String path)
     {
-        synchronized (FilesLock) 
-        {    
-            Files.offer(name);
-            FilesLock.notify();   
-        }
+        Transfer transfer = new Transfer(path, transferCapacity, TransferEvents);
+        transfers.put(transfer.getId(), transfer);
+        TransferEvents.put(transfer);
+        new Thread(() -> fillQueue(transfer)).start();
+        return transfer;
     }
 
-    public void addChunck(ByteArrayTuple new_)
+    public List<Transfer> getTransfers()
     {
-        synchronized (DataLock) 
-        {    
-            System.out.flush();
-            Chunks.offerLast(new_);
-            DataLock.notify();
-        }
+        return new ArrayList<>(transfers.values());
+    }
+
+    public boolean cancelTransfer(int id)
+    {
+        Transfer transfer = transfers.get(id);
+        return transfer != null && transfer.cancel();
+    }
+
+    public boolean pauseTransfer(int id)
+    {
+        Transfer transfer = transfers.get(id);
+        return transfer != null && transfer.pause();
+    }
+
+    public boolean resumeTransfer(int id)
+    {
+        Transfer transfer = transfers.get(id);
+        return transfer != null && transfer.resume();
+    }
+
+    /// prefixes the transfer id, returns false once the transfer is cancelled
+    public boolean addChunck(Transfer transfer, byte[] data, int type)
+    {
+        byte[] frame_data = ByteBuffer.allocate(4 + data.length).putInt(transfer.getId()).put(data).array();
+        return transfer.add(new ByteArrayTuple(frame_data, type));
+    }
+
+    private int getFrameSize(int data_size)
+    {
+        return padding.getBytes(StandardCharsets.UTF_8).length + 1 + 16 + 4 + data_size;
     }
 
     private int getBuffSize(int file_size)
@@ -469,24 +726,27 @@ public class Peer
         return (file_size < bufferMaxSize) ? file_size : bufferMaxSize;
     }
 
-    private void fillQueueDataChuncks(String file_path) 
+    private void fillQueueDataChuncks(Transfer transfer, String file_path) 
     {       
         try (FileInputStream fis = new FileInputStream(file_path)) 
         {
             int bytesRead;
             File file = new File(file_path);
             int fileSize = (int) file.length();
+            Progress progress = new Progress("file", name + " sending " + file.getName(), fileSize);
 
             while (fileSize > 0) 
             {
+                // room for the transfer id in front of the data
                 int buff_size = getBuffSize(fileSize);
-                byte[] buffer = new byte[buff_size]; 
-                bytesRead = fis.read(buffer, 0, buff_size);
+                byte[] buffer = new byte[4 + buff_size]; 
+                ByteBuffer.wrap(buffer).putInt(transfer.getId());
+                bytesRead = fis.read(buffer, 4, buff_size);
                 if (bytesRead == -1) break;
                 
-                byte[] chunkData = (bytesRead < buff_size) ? Arrays.copyOf(buffer, bytesRead) : buffer;
-                System.out.println("Add new chunk fillQueue with size " + bytesRead);
-                addChunck(new ByteArrayTuple(chunkData, 2));
+                byte[] chunkData = (bytesRead < buff_size) ? Arrays.copyOf(buffer, 4 + bytesRead) : buffer;
+                if (Log.isEnabled(Log.Level.DEBUG)) Log.debug("chunk", "Add new chunk fillQueue with size " + bytesRead);
+                if (!transfer.add(new ByteArrayTuple(chunkData, 2, progress))) return;
                 
                 fileSize -= bytesRead;
             }
@@ -495,6 +755,9 @@ public class Peer
         {
             e.printStackTrace();
         }
+
+        // lets the receiver close the file, a cancel after this keeps it
+        addChunck(transfer, new byte[0], 7);
     }
 
     public static long getFileSize(String filePath) {
@@ -518,51 +781,96 @@ public class Peer
         return filePath;
     }
 
-    private void addStartChunk(String file_path) 
+    private boolean addStartChunk(Transfer transfer, String file_name) 
     {
-        String file_name = extractFileName(file_path);
         byte[] file_name_bytes = file_name.getBytes(StandardCharsets.UTF_8);
-        Chunks.add(new ByteArrayTuple(file_name_bytes, 1));
+        return addChunck(transfer, file_name_bytes, 1);
     }
 
-    public void fillQueue()
+    /// Sends a directory or glob. Small files are read by a pool and packed into batch frames,
+    /// big ones are streamed one after the other on this thread in the meantime.
+    private void fillQueueTree(Transfer transfer, String pattern)
     {
-        while (true)
-        {     
-            while (Files.isEmpty()) 
+        ExecutorService readers = Executors.newFixedThreadPool(treeReaders);
+        FileBatch batch = new FileBatch(transfer.getId(), batchMaxSize, transfer::add);
+
+        try 
+        {
+            List<FileTree.Entry> large = new ArrayList<>();
+            for (FileTree.Entry entry : FileTree.list(pattern)) 
             {
+                if (entry.getSize() > smallFileLimit) 
+                {
+                    large.add(entry);
+                    continue;
+                }
 
-                try 
+                readers.submit(() -> 
                 {
-                    synchronized (FilesLock) 
+                    if (transfer.isCancelled()) return;
+                    try 
+                    {
+                        batch.add(entry.getName(), entry.read());
+                    } 
+                    catch (IOException e) 
                     {
-                        FilesLock.wait();
+                        Log.error("file", "Error reading " + entry.getPath());
                     }
-                } 
-                catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+                });
             }
 
-
-            while (!Files.isEmpty())
+            for (FileTree.Entry entry : large) 
             {
-                String curr_file_path = Files.poll();
-                addStartChunk(curr_file_path);
-                fillQueueDataChuncks(curr_file_path);
+                if (!addStartChunk(transfer, entry.getName())) return;
+                fillQueueDataChuncks(transfer, entry.getPath().toString());
             }
+
+            readers.shutdown();
+            readers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            if (transfer.isCancelled()) return;
+            batch.flush();
+            Log.info("file", name + " sent " + pattern + ": " + batch.getFiles() + " files packed, " + large.size() + " streamed");
+        } 
+        catch (IOException e) 
+        {
+            Log.error("file", "Error listing " + pattern);
+            e.printStackTrace();
+        } 
+        catch (InterruptedException e) 
+        {
+            Thread.currentThread().interrupt();
+        } 
+        finally 
+        {
+            readers.shutdownNow();
         }
     }
 
+    /// Reader of one transfer, runs on its own thread and stops early when the transfer is cancelled.
+    public void fillQueue(Transfer transfer)
+    {
+        String path = transfer.getPath();
+
+        if (FileTree.isTree(path)) 
+            fillQueueTree(transfer, path);
+        else if (addStartChunk(transfer, extractFileName(path))) 
+            fillQueueDataChuncks(transfer, path);
+
+        transfer.finishReading();
+        if (transfer.isCancelled())
+            Log.info("file", name + " stopped reading " + path);
+    }
+
     public void closeConnection() 
     {
         try 
         {
-            if (socket != null) socket.close();
+            if (messageTransport != null && messageTransport != transport) messageTransport.close();
+            if (transport != null) transport.close();
         }
         catch (IOException e) 
         {
-            System.err.println("Error closing connection.");
+            Log.error("connection", "Error closing connection.");
             e.printStackTrace();
         }
     }
@@ -575,7 +883,7 @@ public class Peer
         } 
         catch (InterruptedException e) 
         {
-            System.err.println("Interrupted while waiting for server to start: " + e.getMessage());
+            Log.warn("connection", "Interrupted while waiting for server to start: " + e.getMessage());
             Thread.currentThread().interrupt(); 
             return;
         }
@@ -0,0 +1,65 @@
+/// Replaces a log line per chunk with a summary at most once per interval.
+/// Used from a single thread per transfer, on the sending side that is the thread writing the frames.
+public class Progress 
+{
+    private static final long intervalMillis = 1000;
+    private static final long KB = 1024;
+    private static final long MB = 1024 * KB;
+
+    private final String category;
+    private final String label;
+    private final long total;
+    private final long start = System.currentTimeMillis();
+    private long done = 0;
+    private long lastReport = start;
+
+    /// total is -1 when the size is not known, e.g. on the receiving side
+    public Progress(String category, String label, long total)
+    {
+        this.category = category;
+        this.label = label;
+        this.total = total;
+    }
+
+    public void add(long bytes)
+    {
+        done += bytes;
+        long now = System.currentTimeMillis();
+
+        if (total >= 0 && done >= total) 
+            Log.info(category, label + ": done, " + describe(now));
+        else if (now - lastReport >= intervalMillis) 
+            Log.info(category, label + ": " + describe(now));
+        else 
+            return;
+
+        lastReport = now;
+    }
+
+    private String describe(long now)
+    {
+        double seconds = Math.max(now - start, 1) / 1000.0;
+        String rate = String.format("%.1f MB/s", done / (double) MB / seconds);
+
+        if (total > 0) 
+        {
+            long unit = unit(total);
+            return String.format("%d%% (%d of %d %s), %s", done * 100 / total, done / unit, total / unit, unitName(unit), rate);
+        }
+        long unit = unit(done);
+        return String.format("%d %s, %s", done / unit, unitName(unit), rate);
+    }
+
+    /// files under a MB are shown in KB, under a KB in bytes
+    private static long unit(long bytes)
+    {
+        if (bytes >= MB) return MB;
+        return bytes >= KB ? KB : 1;
+    }
+
+    private static String unitName(long unit)
+    {
+        if (unit == MB) return "MB";
+        return unit == KB ? "KB" : "bytes";
+    }
+}
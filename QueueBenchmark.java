@@ -0,0 +1,251 @@
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/// Many producers, one consumer. Compares the old LinkedList guarded by a monitor with
+/// MpscQueue and prints the enqueue rate. Every run also checks that the consumer got
+/// every element exactly once and in the order each producer added them.
+///
+/// Before that it checks what Peer relies on besides put and poll: pushFront from several
+/// threads, one consumer awaiting two queues at once, and wakeConsumer() ending an await.
+///
+/// The rates only mean something with several CPUs, on one CPU threads rarely contend.
+///
+///     java QueueBenchmark [elements_per_run]
+public class QueueBenchmark 
+{
+    private static final int[] producerCounts = { 1, 2, 4, 8, 16 };
+
+    /// what Peer used before: LinkedList, synchronized and notify
+    private static class LockedQueue 
+    {
+        private final Deque<long[]> queue = new LinkedList<>();
+        private final Object DataLock = new Object();
+
+        void add(long[] item)
+        {
+            synchronized (DataLock) 
+            {
+                queue.offerLast(item);
+                DataLock.notify();
+            }
+        }
+
+        long[] take() throws InterruptedException
+        {
+            synchronized (DataLock) 
+            {
+                while (queue.isEmpty()) 
+                    DataLock.wait();
+                return queue.pollFirst();
+            }
+        }
+    }
+
+    private interface Producer 
+    {
+        void add(long[] item);
+    }
+
+    private interface Consumer 
+    {
+        long[] take() throws InterruptedException;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int elements = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+
+        checkPushFrontAndAwait(4, 20_000);
+        checkWakeConsumer();
+        System.out.println("checks passed");
+
+        // warmup
+        for (int producers : producerCounts) 
+        {
+            runLocked(producers, elements / 10);
+            runMpsc(producers, elements / 10);
+        }
+
+        System.out.printf("%-10s %18s %18s%n", "producers", "locked (M ops/s)", "mpsc (M ops/s)");
+        for (int producers : producerCounts) 
+        {
+            double locked = runLocked(producers, elements);
+            double mpsc = runMpsc(producers, elements);
+            System.out.printf("%-10d %18.2f %18.2f%n", producers, locked, mpsc);
+        }
+    }
+
+    private static double runLocked(int producers, int elements) throws InterruptedException
+    {
+        LockedQueue queue = new LockedQueue();
+        return run(producers, elements, queue::add, queue::take);
+    }
+
+    private static double runMpsc(int producers, int elements) throws InterruptedException
+    {
+        MpscQueue<long[]> queue = new MpscQueue<>(1024);
+        return run(producers, elements, queue::put, () -> 
+        {
+            long[] item;
+            while ((item = queue.poll()) == null) 
+                MpscQueue.await(queue);
+            return item;
+        });
+    }
+
+    /// Producers put into two queues and push to the front of them while one consumer
+    /// awaits both. Every element has to arrive once, and put elements in producer order.
+    private static void checkPushFrontAndAwait(int producers, int perProducer) throws InterruptedException
+    {
+        MpscQueue<long[]> first = new MpscQueue<>(64);
+        MpscQueue<long[]> second = new MpscQueue<>(64);
+        Thread[] threads = new Thread[producers * 2];
+
+        for (int p = 0; p < producers; p++) 
+        {
+            final long id = p;
+            MpscQueue<long[]> queue = p % 2 == 0 ? first : second;
+
+            // ids below producers use put, the others pushFront
+            threads[p] = new Thread(() -> 
+            {
+                for (long i = 0; i < perProducer; i++) 
+                    queue.put(new long[] { id, i });
+            });
+            threads[producers + p] = new Thread(() -> 
+            {
+                for (long i = 0; i < perProducer; i++) 
+                {
+                    queue.pushFront(new long[] { producers + id, i });
+                    if (i % 64 == 0) Thread.yield();
+                }
+            });
+        }
+        for (Thread t : threads) 
+            t.start();
+
+        // once every producer is done the consumer is woken, so a lost element fails instead of hanging
+        AtomicBoolean producersDone = new AtomicBoolean(false);
+        Thread watchdog = new Thread(() -> 
+        {
+            try 
+            {
+                for (Thread t : threads) 
+                    t.join();
+            } 
+            catch (InterruptedException e) 
+            {
+                return;
+            }
+            producersDone.set(true);
+            first.wakeConsumer();
+        });
+        watchdog.start();
+
+        long[] expected = new long[producers];
+        boolean[][] pushed = new boolean[producers][perProducer];
+        int total = producers * perProducer * 2;
+
+        for (int received = 0; received < total; received++) 
+        {
+            long[] item;
+            while ((item = first.poll()) == null && (item = second.poll()) == null) 
+            {
+                if (producersDone.get() && first.isEmpty() && second.isEmpty()) 
+                    throw new IllegalStateException("lost " + (total - received) + " elements");
+                MpscQueue.await(first, second);
+            }
+
+            int id = (int) item[0];
+            if (id < producers) 
+            {
+                if (item[1] != expected[id]) 
+                    throw new IllegalStateException("producer " + id + ": expected " + expected[id] + " got " + item[1]);
+                expected[id]++;
+            }
+            else 
+            {
+                if (pushed[id - producers][(int) item[1]]) 
+                    throw new IllegalStateException("pushed twice: " + id + " " + item[1]);
+                pushed[id - producers][(int) item[1]] = true;
+            }
+        }
+
+        watchdog.join();
+
+        if (first.poll() != null || second.poll() != null) 
+            throw new IllegalStateException("elements left over");
+    }
+
+    /// A consumer parked on empty queues has to come back when woken, e.g. for a clear request.
+    private static void checkWakeConsumer() throws InterruptedException
+    {
+        MpscQueue<Object> first = new MpscQueue<>(16);
+        MpscQueue<Object> second = new MpscQueue<>(16);
+        AtomicBoolean stop = new AtomicBoolean(false);
+
+        Thread consumer = new Thread(() -> 
+        {
+            while (!stop.get()) 
+                MpscQueue.await(first, second);
+        });
+        consumer.start();
+
+        Thread.sleep(200);
+        stop.set(true);
+        second.wakeConsumer();
+        consumer.join(2000);
+
+        if (consumer.isAlive()) 
+            throw new IllegalStateException("wakeConsumer did not end await");
+    }
+
+    /// Returns millions of elements per second. Items are { producer, sequence }.
+    private static double run(int producers, int elements, Producer producer, Consumer consumer) throws InterruptedException
+    {
+        int perProducer = elements / producers;
+        int total = perProducer * producers;
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[producers];
+
+        for (int p = 0; p < producers; p++) 
+        {
+            final long id = p;
+            threads[p] = new Thread(() -> 
+            {
+                try 
+                {
+                    start.await();
+                } 
+                catch (InterruptedException e) 
+                {
+                    return;
+                }
+                for (long i = 0; i < perProducer; i++) 
+                    producer.add(new long[] { id, i });
+            });
+            threads[p].start();
+        }
+
+        long[] expected = new long[producers];
+        long begin = System.nanoTime();
+        start.countDown();
+
+        for (int i = 0; i < total; i++) 
+        {
+            long[] item = consumer.take();
+            int id = (int) item[0];
+            if (item[1] != expected[id]) 
+                throw new IllegalStateException("producer " + id + ": expected " + expected[id] + " got " + item[1]);
+            expected[id]++;
+        }
+
+        long elapsed = System.nanoTime() - begin;
+        for (Thread t : threads) 
+            t.join();
+
+        return total / (elapsed / 1e9) / 1e6;
+    }
+}
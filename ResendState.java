@@ -0,0 +1,13 @@
+/// Checksum/resend bookkeeping of one transport. A type 3 or 4 frame only ever refers to
+/// frames of the transport it came in on, so each transport keeps its own.
+class ResendState 
+{
+    /// last frame sent, type and data are replaced together
+    volatile ByteArrayTuple last_sent = null;
+
+    /// last frame the other peer asked for again, a type 4 gives up on this one
+    volatile ByteArrayTuple last_resent = null;
+
+    /// failed frames in a row, only used by the listener of the transport
+    int consecative_times_resend = 0;
+}
@@ -0,0 +1,57 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/// Stream transport over a connected socket. Frames follow each other on the stream,
+/// so a frame can only be read after everything sent before it.
+/// Nagle is turned off and the parts of a frame are gathered in a buffer, otherwise a small
+/// frame waits for the delayed ack of the previous one.
+public class TcpTransport implements Transport 
+{
+    private static final int writeBufferSize = 64 * 1024;
+
+    private final Socket socket;
+    private final DataInputStream inputStream;
+    private final OutputStream outputStream;
+    private final Object Writinglock = new Object();
+
+    public TcpTransport(Socket socket) throws IOException
+    {
+        this.socket = socket;
+        socket.setTcpNoDelay(true);
+        this.inputStream = new DataInputStream(socket.getInputStream());
+        this.outputStream = new BufferedOutputStream(socket.getOutputStream(), writeBufferSize);
+    }
+
+    @Override
+    public void send(byte[]... parts) throws IOException
+    {
+        synchronized (Writinglock) 
+        {
+            for (byte[] part : parts)
+                outputStream.write(part);
+
+            outputStream.flush();
+        }
+    }
+
+    @Override
+    public DataInputStream nextFrame()
+    {
+        return inputStream;
+    }
+
+    @Override
+    public int maxFrameSize()
+    {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        socket.close();
+    }
+}
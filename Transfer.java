@@ -0,0 +1,105 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/// One outbound file or tree with its own queue of frames. Pausing, resuming and cancelling
+/// only flip the state, the sending thread then skips or drops the whole queue, and the reader
+/// filling it stops at its next chunk.
+public class Transfer 
+{
+    public enum State { ACTIVE, PAUSED, CANCELLED }
+
+    private static final AtomicInteger nextId = new AtomicInteger(1);
+
+    private final int id = nextId.getAndIncrement();
+    private final String path;
+    private final MpscQueue<ByteArrayTuple> chunks;
+    private final MpscQueue<Transfer> events;
+    private final AtomicReference<State> state = new AtomicReference<>(State.ACTIVE);
+    private volatile boolean reading = true;
+
+    /// only used by the sending thread
+    boolean scheduled = false;
+
+    /// events is where state changes are announced so the sending thread wakes up
+    public Transfer(String path, int capacity, MpscQueue<Transfer> events)
+    {
+        this.path = path;
+        this.chunks = new MpscQueue<>(capacity);
+        this.events = events;
+    }
+
+    public int getId() { return id; }
+    public String getPath() { return path; }
+    public State getState() { return state.get(); }
+    public boolean isCancelled() { return state.get() == State.CANCELLED; }
+    public boolean isPaused() { return state.get() == State.PAUSED; }
+    public int getQueued() { return chunks.size(); }
+
+    public boolean pause()
+    {
+        return change(State.ACTIVE, State.PAUSED);
+    }
+
+    public boolean resume()
+    {
+        return change(State.PAUSED, State.ACTIVE);
+    }
+
+    /// false when it was cancelled already or everything was sent, there is nothing left to stop then
+    public boolean cancel()
+    {
+        State current = state.get();
+        while (current != State.CANCELLED && !isFinished()) 
+        {
+            if (state.compareAndSet(current, State.CANCELLED)) 
+            {
+                events.put(this);
+                return true;
+            }
+            current = state.get();
+        }
+        return false;
+    }
+
+    private boolean change(State from, State to)
+    {
+        if (!state.compareAndSet(from, to)) return false;
+        events.put(this);
+        return true;
+    }
+
+    /// Reader side. Waits while the queue is full, returns false once the transfer is cancelled.
+    public boolean add(ByteArrayTuple chunk)
+    {
+        while (!chunks.offer(chunk)) 
+        {
+            if (isCancelled()) return false;
+            LockSupport.parkNanos(this, 50_000);
+        }
+        return !isCancelled();
+    }
+
+    /// Reader side, nothing more will be added.
+    public void finishReading()
+    {
+        reading = false;
+        events.put(this);
+    }
+
+    /// true when the reader is done and everything was sent
+    public boolean isFinished()
+    {
+        return !reading && chunks.isEmpty();
+    }
+
+    MpscQueue<ByteArrayTuple> getChunks()
+    {
+        return chunks;
+    }
+
+    public ByteArrayTuple poll()
+    {
+        return chunks.poll();
+    }
+}
@@ -0,0 +1,19 @@
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/// Carries whole frames (header, checksum, length, data) between two peers.
+/// Peer builds and parses the frames, the transport only moves the bytes.
+public interface Transport 
+{
+    /// Sends all parts as one frame. Parts of concurrent calls never interleave.
+    void send(byte[]... parts) throws IOException;
+
+    /// Blocks until the next frame is available and returns a stream positioned at its first byte.
+    /// The stream is only valid until the next call.
+    DataInputStream nextFrame() throws IOException;
+
+    /// Largest frame (all parts together) this transport can carry.
+    int maxFrameSize();
+
+    void close() throws IOException;
+}
@@ -0,0 +1,151 @@
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/// Loopback ping-pong between two transports. Prints the one way latency of a small chat
+/// message, alone and while a file is streamed over TCP at the same time.
+///
+///     java TransportBenchmark [round_trips]
+public class TransportBenchmark 
+{
+    private static final int tcpPort = 23456;
+    private static final int udpPort = 23457;
+    private static final int bulkPort = 23458;
+
+    private static final byte PING = 0;
+    private static final byte BULK = 2;
+
+    public static void main(String[] args) throws Exception
+    {
+        int roundTrips = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        Transport[] tcp = tcpPair(tcpPort);
+        Transport[] udp = udpPair(udpPort);
+        Transport[] bulk = tcpPair(bulkPort);
+
+        startEcho(tcp[1]);
+        startEcho(udp[1]);
+        startEcho(bulk[1]);
+
+        report("tcp", measure(tcp[0], roundTrips));
+        report("udp", measure(udp[0], roundTrips));
+
+        // file data on the same stream as the messages
+        Thread filler = startBulk(tcp[0]);
+        report("tcp + file on same socket", measure(tcp[0], roundTrips));
+        filler.interrupt();
+        filler.join();
+
+        // file data on its own stream, messages as datagrams
+        filler = startBulk(bulk[0]);
+        report("udp + file on tcp", measure(udp[0], roundTrips));
+        filler.interrupt();
+        filler.join();
+
+        for (Transport t : new Transport[] { tcp[0], tcp[1], udp[0], udp[1], bulk[0], bulk[1] })
+            t.close();
+    }
+
+    /// plain sockets handed to TcpTransport, the same way Peer connects
+    private static Transport[] tcpPair(int port) throws IOException
+    {
+        try (ServerSocket serverSocket = new ServerSocket(port)) 
+        {
+            Socket client = new Socket("localhost", port);
+            Socket server = serverSocket.accept();
+            return new Transport[] { new TcpTransport(client), new TcpTransport(server) };
+        }
+    }
+
+    private static Transport[] udpPair(int port) throws IOException
+    {
+        Transport server = DatagramTransport.listen(port);
+        Transport client = DatagramTransport.connect("localhost", port);
+        return new Transport[] { client, server };
+    }
+
+    /// Answers every ping with the same frame and drops file data.
+    private static void startEcho(Transport t)
+    {
+        Thread echo = new Thread(() -> 
+        {
+            try 
+            {
+                while (true) 
+                {
+                    DataInputStream in = t.nextFrame();
+                    byte type = in.readByte();
+                    byte[] data = new byte[in.readInt()];
+                    in.readFully(data);
+
+                    if (type == PING)
+                        t.send(new byte[] { PING }, ByteBuffer.allocate(4).putInt(data.length).array(), data);
+                }
+            } 
+            catch (IOException e) 
+            {
+                // transport closed
+            }
+        });
+        echo.setDaemon(true);
+        echo.start();
+    }
+
+    private static Thread startBulk(Transport t)
+    {
+        Thread filler = new Thread(() -> 
+        {
+            byte[] chunk = new byte[20000];
+            byte[] length = ByteBuffer.allocate(4).putInt(chunk.length).array();
+            try 
+            {
+                while (!Thread.currentThread().isInterrupted())
+                    t.send(new byte[] { BULK }, length, chunk);
+            } 
+            catch (IOException e) 
+            {
+                e.printStackTrace();
+            }
+        });
+        filler.start();
+        return filler;
+    }
+
+    private static long[] measure(Transport t, int roundTrips) throws IOException
+    {
+        byte[] message = "hello, how are you?".getBytes();
+        byte[] length = ByteBuffer.allocate(4).putInt(message.length).array();
+        long[] nanos = new long[roundTrips];
+
+        for (int i = 0; i < roundTrips; i++) 
+        {
+            long start = System.nanoTime();
+            t.send(new byte[] { PING }, length, message);
+
+            DataInputStream in = t.nextFrame();
+            in.readByte();
+            in.readFully(new byte[in.readInt()]);
+
+            nanos[i] = (System.nanoTime() - start) / 2;
+        }
+        return nanos;
+    }
+
+    private static void report(String name, long[] nanos)
+    {
+        // first tenth is warmup
+        long[] sorted = Arrays.copyOfRange(nanos, nanos.length / 10, nanos.length);
+        Arrays.sort(sorted);
+
+        long sum = 0;
+        for (long n : sorted) sum += n;
+
+        System.out.printf("%-28s mean %8.1f us   p50 %8.1f us   p99 %8.1f us%n", name,
+            sum / (double) sorted.length / 1000,
+            sorted[sorted.length / 2] / 1000.0,
+            sorted[(int) (sorted.length * 0.99)] / 1000.0);
+    }
+}
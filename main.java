@@ -4,6 +4,14 @@ public class main
     {
         Peer peer1 = new Peer(12345, "localhost", "Ivan");
         Peer peer2 = new Peer(54321, "localhost", "Anna");
+
+        // -Dchat.udp=true sends chat messages as datagrams, files stay on TCP
+        if (Boolean.getBoolean("chat.udp")) 
+        {
+            peer1.enableUdpMessages();
+            peer2.enableUdpMessages();
+        }
+
         Chat chat = new Chat(peer1, peer2);
         chat.runChat();
     }